@@ -0,0 +1,200 @@
+/*
+  Copyright (C) 2026 gephi_graphviz contributors
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+*/
+
+package org.icculus.chunky.gephigraphviz;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes DOT straight into a reusable UTF-8 byte buffer, escaping quoted
+ * strings on the way, so the size of graphviz's input is known exactly
+ * before graphviz is started.
+ *
+ * Once written, the contents can be sent to any number of processes at
+ * once; writeTo() does not disturb the buffer.
+ *
+ * @author gephi_graphviz contributors
+ */
+public class DotEncoder {
+
+    /** What to do with node labels */
+    public enum LabelPolicy {
+        /** Send labels as they are */
+        FULL,
+        /** Cut labels down to the maximum length and add an ellipsis */
+        TRUNCATE,
+        /** Replace labels over the maximum length with a short hash */
+        HASH,
+        /** Leave labels out; graphviz then labels nodes with their ids */
+        NONE
+    }
+
+    private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+    private static final int ELLIPSIS = 0x2026;
+
+    private ByteBuffer buffer;
+
+    public DotEncoder() {
+        this(64 * 1024);
+    }
+
+    public DotEncoder(int initialCapacity) {
+        buffer = ByteBuffer.allocate(Math.max(16, initialCapacity));
+    }
+
+    /** Empty the buffer, keeping its storage for the next graph */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /** @return number of bytes encoded so far */
+    public int size() {
+        return buffer.position();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+
+    /** Append DOT syntax. Must be plain ASCII; use appendQuoted() for anything else */
+    public DotEncoder append(String token) throws IOException {
+        final int len = token.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            buffer.put((byte) token.charAt(i));
+        }
+        return this;
+    }
+
+    public DotEncoder append(char c) throws IOException {
+        ensureCapacity(1);
+        buffer.put((byte) c);
+        return this;
+    }
+
+    public DotEncoder append(int value) throws IOException {
+        return append(Integer.toString(value));
+    }
+
+    public DotEncoder append(float value) throws IOException {
+        return append(Float.toString(value));
+    }
+
+    /** Append a double-quoted DOT string */
+    public DotEncoder appendQuoted(String value) throws IOException {
+        return appendQuoted(value, 0, value.length(), false);
+    }
+
+    /**
+     * Append a node label as a double-quoted DOT string, shortened as the
+     * policy says. Callers should leave the label attribute out altogether
+     * for NONE.
+     *
+     * @param maxLength longest label, in chars, that TRUNCATE and HASH
+     *  leave alone
+     */
+    public DotEncoder appendLabel(String label, LabelPolicy policy, int maxLength) throws IOException {
+        if (LabelPolicy.FULL == policy || label.length() <= maxLength) {
+            return appendQuoted(label);
+        }
+        if (LabelPolicy.HASH == policy) {
+            return appendQuoted("#" + Integer.toHexString(label.hashCode()));
+        }
+        int end = Math.max(0, maxLength);
+        if (end > 0 && Character.isHighSurrogate(label.charAt(end - 1))) {
+            // Don't split a surrogate pair
+            end--;
+        }
+        return appendQuoted(label, 0, end, true);
+    }
+
+    private DotEncoder appendQuoted(String value, int start, int end, boolean ellipsis) throws IOException {
+        // Worst case is three bytes per char, plus quotes and ellipsis
+        final long worstCase = 3L * (end - start) + 5;
+        if (worstCase > Integer.MAX_VALUE) {
+            throw new IOException("Graphviz input is over " + Integer.MAX_VALUE + " bytes");
+        }
+        ensureCapacity((int) worstCase);
+        buffer.put((byte) '"');
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    buffer.put((byte) '\\').put((byte) c);
+                    break;
+                case '\n':
+                    buffer.put((byte) '\\').put((byte) 'n');
+                    break;
+                case '\r':
+                    break;
+                default:
+                    if (c < 0x20) {
+                        buffer.put((byte) ' ');
+                    } else if (c < 0x80) {
+                        buffer.put((byte) c);
+                    } else if (Character.isHighSurrogate(c) && i + 1 < end
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        putUtf8(Character.toCodePoint(c, value.charAt(++i)));
+                    } else if (Character.isSurrogate(c)) {
+                        putUtf8(REPLACEMENT_CHARACTER);
+                    } else {
+                        putUtf8(c);
+                    }
+            }
+        }
+        if (ellipsis) {
+            putUtf8(ELLIPSIS);
+        }
+        buffer.put((byte) '"');
+        return this;
+    }
+
+    private void putUtf8(int codePoint) {
+        if (codePoint < 0x800) {
+            buffer.put((byte) (0xC0 | (codePoint >> 6)));
+        } else if (codePoint < 0x10000) {
+            buffer.put((byte) (0xE0 | (codePoint >> 12)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        } else {
+            buffer.put((byte) (0xF0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        }
+        buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+    }
+
+    private void ensureCapacity(int extra) throws IOException {
+        if (buffer.remaining() >= extra) {
+            return;
+        }
+        final long needed = (long) buffer.position() + extra;
+        if (needed > Integer.MAX_VALUE) {
+            throw new IOException("Graphviz input is over " + Integer.MAX_VALUE + " bytes");
+        }
+        final long doubled = Math.min(2L * buffer.capacity(), Integer.MAX_VALUE);
+        final ByteBuffer bigger = ByteBuffer.allocate((int) Math.max(needed, doubled));
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+}
@@ -18,25 +18,42 @@
   3. This notice may not be removed or altered from any source distribution.
 
         Gary Briggs <chunky@icculus.org>
+
+  Altered in 2026 by the gephi_graphviz contributors; this is not the
+  original software.
 */
 
 package org.icculus.chunky.gephigraphviz;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.MissingResourceException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.JOptionPane;
 
@@ -53,14 +70,52 @@ import org.openide.util.NbBundle;
 
 public class GraphvizLayout extends AbstractLayout implements Layout {
 
+    private static final Logger LOG = Logger.getLogger(GraphvizLayout.class.getName());
+
+    // Node sizes in graphviz output, in inches
+    private static final Pattern WIDTH_PATTERN = Pattern.compile("(?:^|[, \\s])width=\"?([0-9.]+)");
+    private static final Pattern HEIGHT_PATTERN = Pattern.compile("(?:^|[, \\s])height=\"?([0-9.]+)");
+
+    // Engines that take their starting layout from pos
+    private static final List<String> SEEDED_ENGINES = Arrays.asList("neato", "fdp", "sfdp");
+
+    // How long to wait for the rest of a failed graphviz's stderr, and how
+    //  much of it to put in the error message
+    private static final int ERROR_WAIT_SECONDS = 2;
+    private static final int ERROR_TEXT_LIMIT = 500;
+
+    // The preview is only worth having if it's quick
+    private static final int PREVIEW_CPU_LIMIT = 2;
+
     // http://www.graphviz.org/doc/info/attrs.html
     private String algoName = "dot";
     private String dotBinary = "dot";
     private String rankDir = "LR";
     private String overlap = "false";
     private Boolean concentrate = false;
+    // Per-process limits, enforced by GraphvizScheduler; 0 means unlimited
+    private Integer memoryLimit = 0;
+    private Integer cpuLimit = 0;
+    
+    // Engines tried in parallel when algoName is "race"
+    private String raceEngines = "sfdp,neato,fdp";
+    private String lastRaceWinner = null;
+    // Lay out a skeleton first, then the whole graph on the next pass
+    private Boolean progressive = false;
+    private Integer skeletonSize = 1000;
+    private boolean previewDone = false;
+    // Input encoding; see DotEncoder.LabelPolicy. Sizes in chars and MB
+    private String labelPolicy = "full";
+    private Integer maxLabelLength = 256;
+    private Integer maxInputSize = 0;
+    private Boolean downgradeOversize = true;
+    private int lastInputSize = 0;
+
+    // Reused between runs to save reallocating for big graphs
+    private final DotEncoder dotfile = new DotEncoder();
     
-    private Process dotprocess = null;
+    private final List<Process> dotprocesses = new ArrayList<Process>();
+    private volatile boolean cancelled = false;
 
     private Graph graph;
 
@@ -71,18 +126,102 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
     @Override
     public void initAlgo() {
         this.graph = graphModel.getGraphVisible();
+        cancelled = false;
+        previewDone = false;
         setConverged(false);
     }
 
     @Override
     public void goAlgo() {
-        // Prepare input
-        final StringBuffer dotfile = new StringBuffer();
+        if (this.progressive && !previewDone) {
+            previewDone = true;
+            final String previewEngine = previewEngine();
+            if (null != previewEngine && this.graph.getNodeCount() > this.skeletonSize) {
+                runPreview(previewEngine);
+                if (cancelled) {
+                    setConverged(true);
+                }
+                // Not converged; the next pass does the full layout, seeded
+                //  with the preview positions
+                return;
+            }
+        }
+
+        try {
+            if (GraphvizRace.RACE.equals(this.algoName)) {
+                runRace(buildDotInput(null));
+            } else {
+                // Encode first, so oversized input is rejected before taking a slot
+                final DotEncoder input = buildDotInput(this.algoName);
+                final GraphvizScheduler scheduler = GraphvizScheduler.getDefault();
+                scheduler.acquire();
+                try {
+                    final String output = runGraphviz(graphvizCommand(null), input,
+                            this.memoryLimit, this.cpuLimit);
+                    applyPositions(parsePositions(output));
+                } finally {
+                    scheduler.release();
+                }
+            }
+        } catch (InterruptedIOException ex) {
+            // Stopped by the user, not an error
+            cancelled = true;
+            destroyProcesses();
+        } catch (IOException ex) {
+            if (!cancelled) {
+                JOptionPane.showMessageDialog(null, new DotProcessError(ex), "Graphviz process error", JOptionPane.ERROR_MESSAGE);
+            }
+        } finally {
+            setConverged(true);
+        }
+    }
+
+    @Override
+    public void endAlgo() {
+        cancelled = true;
+        destroyProcesses();
+    }
+
+    /**
+     * Serialize the graph for graphviz into dotfile, and check the result
+     * against maxInputSize. Oversized input is re-encoded without labels
+     * if downgradeOversize is set, and rejected otherwise.
+     *
+     * @param layoutEngine value for the graph's layout attribute, or null to
+     *  leave it out and let -K on the command line choose
+     */
+    private DotEncoder buildDotInput(final String layoutEngine) throws IOException {
+        DotEncoder.LabelPolicy policy = getLabelPolicyValue();
+        encodeGraph(layoutEngine, policy);
+        final long limit = (long) this.maxInputSize * 1024 * 1024;
+        if (limit > 0 && dotfile.size() > limit && this.downgradeOversize
+                && DotEncoder.LabelPolicy.NONE != policy) {
+            LOG.log(Level.INFO, "Graphviz input is {0} bytes; dropping labels", dotfile.size());
+            policy = DotEncoder.LabelPolicy.NONE;
+            encodeGraph(layoutEngine, policy);
+        }
+        this.lastInputSize = dotfile.size();
+        // Worth a mention when it's getting close to the limit
+        LOG.log(limit > 0 && dotfile.size() > limit * 0.8 ? Level.INFO : Level.FINE,
+                "Graphviz input is {0} bytes", dotfile.size());
+        if (limit > 0 && dotfile.size() > limit) {
+            throw new IOException("Graphviz input is " + dotfile.size() + " bytes, over the "
+                    + this.maxInputSize + "MB limit");
+        }
+        return dotfile;
+    }
+
+    private void encodeGraph(final String layoutEngine, final DotEncoder.LabelPolicy policy) throws IOException {
+        dotfile.reset();
 
         dotfile.append("digraph g {\n");
-        dotfile.append("layout = \"").append(this.algoName).append("\";\n");
-        dotfile.append("rankdir = \"").append(this.rankDir).append("\";\n");
-        dotfile.append("overlap = \"").append(this.overlap).append("\";\n");
+        if (null != layoutEngine) {
+            dotfile.append("layout = ").appendQuoted(layoutEngine).append(";\n");
+        }
+        // Gephi coordinates are points; without this neato and fdp read pos as inches
+        dotfile.append("inputscale = 72;\n");
+        dotfile.append("rankdir = ").appendQuoted(this.rankDir).append(";\n");
+        dotfile.append("overlap = ").appendQuoted(this.overlap).append(";\n");
         if (this.concentrate) {
             dotfile.append("concentrate=true;\n");
         }
@@ -93,8 +232,11 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
             dotfile.append(n.getId());
             dotfile.append(" [");
             dotfile.append("pos=\"").append(nodeData.x()).append(',').append(nodeData.y()).append('"');
-            dotfile.append(", ");
-            dotfile.append("label=\"").append(nodeData.getLabel()).append('"');
+            final String label = nodeData.getLabel();
+            if (null != label && DotEncoder.LabelPolicy.NONE != policy) {
+                dotfile.append(", ");
+                dotfile.append("label=").appendLabel(label, policy, this.maxLabelLength);
+            }
             dotfile.append("];\n");
         }
         for (final Edge e : this.graph.getEdges()) {
@@ -108,45 +250,229 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
             dotfile.append("];\n");
         }
         dotfile.append("}\n");
+    }
 
+    /**
+     * @param engine engine to force with -K, or null to use the graph's
+     *  layout attribute
+     */
+    private List<String> graphvizCommand(final String engine) {
         // Call Graphviz
         // we are calling it directly. However, there is also a java binding
         // http://www.graphviz.org/pdf/gv.3java.pdf
         final List<String> cmd = new ArrayList<String>();
         cmd.add(this.dotBinary);
+        if (null != engine) {
+            cmd.add("-K" + engine);
+        }
         cmd.add("-Tdot");
-        final ProcessBuilder pb = new ProcessBuilder(cmd);
+        return cmd;
+    }
 
+    /**
+     * Run every engine in raceEngines on the same input at once, and apply
+     * the first result that passes GraphvizRace's overlap check. If none
+     * pass, the least overlapping result wins. Losers are killed as soon
+     * as there is a winner.
+     */
+    private void runRace(final DotEncoder input) throws IOException {
+        final List<String> engines = GraphvizRace.parseEngines(this.raceEngines);
+        if (engines.isEmpty()) {
+            throw new IOException("No graphviz engines to race");
+        }
+        final int nodeCount = this.graph.getNodeCount();
+        final GraphvizScheduler scheduler = GraphvizScheduler.getDefault();
+
+        if (scheduler.getMaxProcesses() < engines.size()) {
+            LOG.log(Level.INFO, "Graphviz race of {0} engines limited to {1} at a time",
+                    new Object[] { engines.size(), scheduler.getMaxProcesses() });
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(engines.size());
+        final CompletionService<RaceEntry> racers = new ExecutorCompletionService<RaceEntry>(pool);
+
+        RaceEntry winner = null;
+        RaceEntry best = null;
+        IOException lastError = null;
+        int next = 0;
+        int running = 0;
         try {
-            dotprocess = pb.start();
+            while (null == winner && (next < engines.size() || running > 0)) {
+                // Slots are taken here, in engine order, so the engines most
+                //  likely to win get to run first when slots are short
+                if (next < engines.size()) {
+                    boolean haveSlot = false;
+                    try {
+                        if (0 == running) {
+                            scheduler.acquire();
+                            haveSlot = true;
+                        } else {
+                            haveSlot = scheduler.tryAcquire();
+                        }
+                    } catch (InterruptedIOException ex) {
+                        throw ex;
+                    } catch (IOException ex) {
+                        // Queue full or timed out; race whoever is already running
+                        lastError = ex;
+                        next = engines.size();
+                    }
+                    if (haveSlot) {
+                        startRacer(racers, engines.get(next++), input);
+                        running++;
+                        continue;
+                    }
+                }
 
-            final OutputStream out = dotprocess.getOutputStream();
-            {
-                final BufferedWriter inputForGraphviz = new BufferedWriter(new PrintWriter(out));
-                inputForGraphviz.append(dotfile);
-                inputForGraphviz.flush();
-                inputForGraphviz.close();                
-                out.flush();
-                out.close();
+                final Future<RaceEntry> done = racers.poll(100, TimeUnit.MILLISECONDS);
+                if (null == done) {
+                    continue;
+                }
+                running--;
+                final RaceEntry entry;
+                try {
+                    entry = done.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        lastError = (IOException) ex.getCause();
+                    } else {
+                        lastError = new IOException(ex.getCause().toString());
+                    }
+                    LOG.log(Level.WARNING, "Graphviz race: {0}", lastError.getMessage());
+                    continue;
+                }
+                if (entry.positions.size() < nodeCount) {
+                    LOG.log(Level.WARNING, "Graphviz race: {0} only placed {1} of {2} nodes",
+                            new Object[] { entry.engine, entry.positions.size(), nodeCount });
+                    continue;
+                }
+                if (entry.overlap <= GraphvizRace.MAX_OVERLAP_FRACTION) {
+                    winner = entry;
+                } else if (null == best || entry.overlap < best.overlap) {
+                    best = entry;
+                }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Graphviz race cancelled");
+        } finally {
+            for (final Runnable neverStarted : pool.shutdownNow()) {
+                // Its slot was taken for it but it will never release it
+                scheduler.release();
+            }
+            try {
+                // A loser may still be starting up; keep killing until all are gone
+                do {
+                    destroyProcesses();
+                } while (!pool.awaitTermination(100, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (null == winner) {
+            winner = best;
+        }
+        if (null == winner) {
+            throw null != lastError ? lastError : new IOException("No graphviz engine finished the race");
+        }
+        GraphvizRace.recordWin(winner.engine);
+        this.lastRaceWinner = winner.engine;
+        LOG.log(Level.FINE, "Graphviz race won by {0} in {1}ms, overlap {2}",
+                new Object[] { winner.engine, winner.millis, winner.overlap });
+        applyPositions(winner.positions);
+    }
+
+    /**
+     * Run one engine of a race. The caller has already taken a scheduler
+     * slot for it; the racer gives it back when graphviz is done.
+     */
+    private void startRacer(final CompletionService<RaceEntry> racers, final String engine,
+            final DotEncoder input) {
+        final GraphvizScheduler scheduler = GraphvizScheduler.getDefault();
+        racers.submit(new Callable<RaceEntry>() {
+            public RaceEntry call() throws IOException {
+                try {
+                    final long start = System.currentTimeMillis();
+                    final String output = runGraphviz(graphvizCommand(engine), input,
+                            GraphvizLayout.this.memoryLimit, GraphvizLayout.this.cpuLimit);
+                    final Map<Integer, float[]> positions = parsePositions(output);
+                    return new RaceEntry(engine, positions,
+                            GraphvizRace.overlapFraction(positions),
+                            System.currentTimeMillis() - start);
+                } finally {
+                    scheduler.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Lay out a GraphvizSkeleton of the graph and place everything else
+     * around it, so there is something to look at while the full layout
+     * runs. Failure here is not fatal; the full layout still follows.
+     */
+    private void runPreview(final String engine) {
+        final long start = System.currentTimeMillis();
+        final GraphvizSkeleton skeleton = new GraphvizSkeleton(this.graph, this.skeletonSize);
 
-            processOutput(dotprocess);
+        final GraphvizScheduler scheduler = GraphvizScheduler.getDefault();
+        try {
+            scheduler.acquire();
+            try {
+                dotfile.reset();
+                skeleton.toDot(dotfile, engine);
+                final int cpu = this.cpuLimit > 0 ? Math.min(this.cpuLimit, PREVIEW_CPU_LIMIT) : PREVIEW_CPU_LIMIT;
+                final String output = runGraphviz(graphvizCommand(null), dotfile, this.memoryLimit, cpu);
+                skeleton.place(parsePositions(output));
+            } finally {
+                scheduler.release();
+            }
+            LOG.log(Level.FINE, "Graphviz preview of {0} hubs took {1}ms",
+                    new Object[] { skeleton.getHubCount(), System.currentTimeMillis() - start });
+        } catch (InterruptedIOException ex) {
+            cancelled = true;
+            destroyProcesses();
         } catch (IOException ex) {
-            JOptionPane.showMessageDialog(null, new DotProcessError(ex), "Graphviz process error", JOptionPane.ERROR_MESSAGE);
-        } finally {
-            if (dotprocess != null) {
-                dotprocess.destroy();
-                dotprocess = null;
+            if (!cancelled) {
+                LOG.log(Level.INFO, "Graphviz preview failed, continuing with full layout: {0}", ex.getMessage());
             }
-            setConverged(true);
         }
     }
 
-    @Override
-    public void endAlgo() {
-        if(null != dotprocess) {
-            dotprocess.destroy();
-            dotprocess = null;
+    /**
+     * Pick the engine to lay out the preview with. Only engines that start
+     * from the pos attribute can use a preview, so for the others (dot,
+     * circo, twopi, osage, patchwork) there is none.
+     *
+     * @return engine name, or null to skip the preview
+     */
+    private String previewEngine() {
+        if (!GraphvizRace.RACE.equals(this.algoName)) {
+            return SEEDED_ENGINES.contains(this.algoName) ? this.algoName : null;
+        }
+        for (final String engine : GraphvizRace.parseEngines(this.raceEngines)) {
+            if (SEEDED_ENGINES.contains(engine)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    private DotEncoder.LabelPolicy getLabelPolicyValue() {
+        try {
+            return DotEncoder.LabelPolicy.valueOf(this.labelPolicy.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException ex) {
+            LOG.log(Level.WARNING, "Unknown label policy {0}; sending full labels", this.labelPolicy);
+            return DotEncoder.LabelPolicy.FULL;
+        }
+    }
+
+    private void destroyProcesses() {
+        synchronized (dotprocesses) {
+            for (final Process p : dotprocesses) {
+                p.destroy();
+            }
+            dotprocesses.clear();
         }
     }
 
@@ -193,6 +519,78 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
                     "GraphvizLayout.concentrate.name",
                     NbBundle.getMessage(getClass(), "GraphvizLayout.concentrate.name"),
                     "isConcentrate", "setConcentrate"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Integer.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.memorylimit.desc"),
+                    null,
+                    "GraphvizLayout.memorylimit.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.memorylimit.name"),
+                    "getMemoryLimit", "setMemoryLimit"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Integer.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.cpulimit.desc"),
+                    null,
+                    "GraphvizLayout.cpulimit.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.cpulimit.name"),
+                    "getCpuLimit", "setCpuLimit"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, String.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.raceengines.desc"),
+                    null,
+                    "GraphvizLayout.raceengines.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.raceengines.name"),
+                    "getRaceEngines", "setRaceEngines"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Boolean.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.progressive.desc"),
+                    null,
+                    "GraphvizLayout.progressive.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.progressive.name"),
+                    "isProgressive", "setProgressive"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Integer.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.skeletonsize.desc"),
+                    null,
+                    "GraphvizLayout.skeletonsize.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.skeletonsize.name"),
+                    "getSkeletonSize", "setSkeletonSize"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, String.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.labelpolicy.desc"),
+                    null,
+                    "GraphvizLayout.labelpolicy.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.labelpolicy.name"),
+                    "getLabelPolicy", "setLabelPolicy"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Integer.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.maxlabellength.desc"),
+                    null,
+                    "GraphvizLayout.maxlabellength.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.maxlabellength.name"),
+                    "getMaxLabelLength", "setMaxLabelLength"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Integer.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.maxinputsize.desc"),
+                    null,
+                    "GraphvizLayout.maxinputsize.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.maxinputsize.name"),
+                    "getMaxInputSize", "setMaxInputSize"));
+
+            properties.add(LayoutProperty.createProperty(
+                    this, Boolean.class,
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.downgradeoversize.desc"),
+                    null,
+                    "GraphvizLayout.downgradeoversize.name",
+                    NbBundle.getMessage(getClass(), "GraphvizLayout.downgradeoversize.name"),
+                    "isDowngradeOversize", "setDowngradeOversize"));
         } catch (MissingResourceException e) {
             Exceptions.printStackTrace(e);
         } catch (NoSuchMethodException e) {
@@ -245,55 +643,222 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
         this.overlap = overlap;
     }
 
-    private void processOutput(final Process dotprocess) {
+    public Integer getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(Integer memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public Integer getCpuLimit() {
+        return cpuLimit;
+    }
+
+    public void setCpuLimit(Integer cpuLimit) {
+        this.cpuLimit = cpuLimit;
+    }
+
+    public String getRaceEngines() {
+        return raceEngines;
+    }
+
+    public void setRaceEngines(String raceEngines) {
+        this.raceEngines = raceEngines;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public void setProgressive(Boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    public Integer getSkeletonSize() {
+        return skeletonSize;
+    }
+
+    public void setSkeletonSize(Integer skeletonSize) {
+        this.skeletonSize = skeletonSize;
+    }
+
+    public String getLabelPolicy() {
+        return labelPolicy;
+    }
+
+    public void setLabelPolicy(String labelPolicy) {
+        this.labelPolicy = labelPolicy;
+    }
+
+    public Integer getMaxLabelLength() {
+        return maxLabelLength;
+    }
+
+    public void setMaxLabelLength(Integer maxLabelLength) {
+        this.maxLabelLength = maxLabelLength;
+    }
+
+    public Integer getMaxInputSize() {
+        return maxInputSize;
+    }
+
+    public void setMaxInputSize(Integer maxInputSize) {
+        this.maxInputSize = maxInputSize;
+    }
+
+    public boolean isDowngradeOversize() {
+        return downgradeOversize;
+    }
+
+    public void setDowngradeOversize(Boolean downgradeOversize) {
+        this.downgradeOversize = downgradeOversize;
+    }
+
+    /**
+     * @return size in bytes of the graph last sent to graphviz
+     */
+    public int getLastInputSize() {
+        return lastInputSize;
+    }
+
+    /**
+     * @return the engine that won the most recent race, or null
+     */
+    public String getLastRaceWinner() {
+        return lastRaceWinner;
+    }
+
+    /**
+     * Run one graphviz process over the given input, under the given
+     * limits, and return everything it wrote to stdout.
+     *
+     * @throws InterruptedIOException if this thread was interrupted; the
+     *  process is killed
+     */
+    private String runGraphviz(final List<String> cmd, final DotEncoder input,
+            final int memoryLimitMB, final int cpuLimitSeconds) throws IOException {
+        final ProcessBuilder pb = new ProcessBuilder(GraphvizScheduler.limitCommand(cmd, memoryLimitMB, cpuLimitSeconds));
+        final Process p = pb.start();
+        synchronized (dotprocesses) {
+            dotprocesses.add(p);
+        }
+        // Set just before we kill graphviz, so the readers know a closed
+        //  stream is our doing and not an error
+        final AtomicBoolean destroyed = new AtomicBoolean(false);
+        try {
+            // Both streams are drained on their own threads: stderr so that
+            //  graphviz can't block on a full pipe of warnings, stdout so
+            //  that waiting for graphviz stays interruptible
+            final FutureTask<String> output = new FutureTask<String>(new Callable<String>() {
+                public String call() throws IOException {
+                    return readOutput(p, destroyed);
+                }
+            });
+            final FutureTask<String> errors = new FutureTask<String>(new Callable<String>() {
+                public String call() {
+                    return dumpErrors(p, destroyed);
+                }
+            });
+            final Thread outputReader = new Thread(output, "graphviz stdout");
+            final Thread errorDumper = new Thread(errors, "graphviz stderr");
+            outputReader.setDaemon(true);
+            errorDumper.setDaemon(true);
+            outputReader.start();
+            errorDumper.start();
+
+            final OutputStream out = p.getOutputStream();
+            try {
+                input.writeTo(out);
+                out.flush();
+                out.close();
+            } catch (IOException ex) {
+                // Most likely graphviz died before reading all its input;
+                //  its exit status says more than "broken pipe" does
+                checkExit(p, errors, memoryLimitMB, cpuLimitSeconds);
+                throw ex;
+            }
+
+            checkExit(p, errors, memoryLimitMB, cpuLimitSeconds);
+            try {
+                final String result = output.get();
+                errors.get();
+                return result;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Graphviz run cancelled");
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause().toString());
+            }
+        } finally {
+            destroyed.set(true);
+            p.destroy();
+            synchronized (dotprocesses) {
+                dotprocesses.remove(p);
+            }
+        }
+    }
+
+    /**
+     * Wait for graphviz to exit. If it failed, the exception carries the
+     * tail of whatever it wrote to stderr.
+     */
+    private static void checkExit(final Process p, final FutureTask<String> errors,
+            final int memoryLimitMB, final int cpuLimitSeconds) throws IOException {
+        final int exitValue;
+        try {
+            exitValue = p.waitFor();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Graphviz run cancelled");
+        }
+        if (0 == exitValue) {
+            return;
+        }
+
+        String message = GraphvizScheduler.describeExit(exitValue, memoryLimitMB, cpuLimitSeconds);
+        String errorText = "";
+        try {
+            errorText = errors.get(ERROR_WAIT_SECONDS, TimeUnit.SECONDS).trim();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+        } catch (TimeoutException ex) {
+            // Something else still holds graphviz's stderr open; go without
+        }
+        if (errorText.length() > ERROR_TEXT_LIMIT) {
+            errorText = "..." + errorText.substring(errorText.length() - ERROR_TEXT_LIMIT);
+        }
+        if (errorText.length() > 0) {
+            message += ": " + errorText;
+        }
+        throw new IOException(message);
+    }
+
+    private static String readOutput(final Process dotprocess, final AtomicBoolean destroyed) throws IOException {
         assert dotprocess != null;
         InputStream in = null;
         try {
             in = dotprocess.getInputStream();
 
-            final BufferedReader outputFromGraphviz = new BufferedReader(new InputStreamReader(in));
+            final BufferedReader outputFromGraphviz = new BufferedReader(new InputStreamReader(in, "UTF-8"));
             StringBuilder entireOutput = new StringBuilder();
             String line;
-            while ((line = outputFromGraphviz.readLine()) != null) {
-                entireOutput.append(line);
-                entireOutput.append("\n");
-//                System.out.println("line");
-            }
-            
-            // For some reason this one wasn't working
-            // Node n = graph.getNode(nodeid);
-            // ... so we map all nodes temporarily
-            final Map<Integer, Node> nodeMapper = new HashMap<Integer, Node>();
-            for (final Node currentNode : this.graph.getNodes()) {
-                nodeMapper.put(currentNode.getId(), currentNode);
-            }
-
-            final String regex = "^\\s*(?<nodeid>\\d+)\\s+\\[.*?[, ]?pos=\"(?<pos>[^\"]+?)\".*?\\]";
-//            System.out.println(entireOutput);
-            final Pattern pat = Pattern.compile(regex, Pattern.MULTILINE | Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-            Matcher matcher = pat.matcher(entireOutput.toString());
-            while(matcher.find()) {
-                Integer nodeid = Integer.valueOf(matcher.group("nodeid"));
-                final Node n = nodeMapper.get(nodeid);
-                if(null == n) {
-                    System.err.println("Cannot find nodeid " + nodeid);
-                    continue;
+            try {
+                while ((line = outputFromGraphviz.readLine()) != null) {
+                    entireOutput.append(line);
+                    entireOutput.append("\n");
+//                    System.out.println("line");
                 }
-                String pos = matcher.group("pos");
-                String[] pair = pos.trim().split("[, ]");
-                if(pair.length != 2) {
-                    System.err.println("Don't know what to do with coordinates != 2; " + pos);
-                    continue;
+            } catch (IOException e) {
+                if (!destroyed.get()) {
+                    throw e;
                 }
-                BigDecimal x_bd = new BigDecimal(pair[0]);
-                BigDecimal y_bd = new BigDecimal(pair[1]);
-//                System.out.println("Node " + nodeid + " : " + pos + " = " + x_bd.floatValue() + "," + y_bd.floatValue());
-                n.getNodeData().setX(x_bd.floatValue());
-                n.getNodeData().setY(y_bd.floatValue());
             }
-             
-       } catch (IOException e) {
-            Exceptions.printStackTrace(e);            
+            return entireOutput.toString();
         } finally {
             try {
                 if (in != null) {
@@ -302,23 +867,93 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
             } catch (IOException e) {
             }
         }
+    }
+
+    /**
+     * @return per node id: x, y, width and height, all in points. Nodes
+     *  graphviz gave no size get its default 0.75in x 0.5in.
+     */
+    private static Map<Integer, float[]> parsePositions(final String entireOutput) {
+        final Map<Integer, float[]> positions = new HashMap<Integer, float[]>();
+        final String regex = "^\\s*(?<nodeid>\\d+)\\s+\\[(?<before>.*?)[, ]?pos=\"(?<pos>[^\"]+?)\"(?<after>.*?)\\]";
+//        System.out.println(entireOutput);
+        final Pattern pat = Pattern.compile(regex, Pattern.MULTILINE | Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        Matcher matcher = pat.matcher(entireOutput);
+        while(matcher.find()) {
+            Integer nodeid = Integer.valueOf(matcher.group("nodeid"));
+            String pos = matcher.group("pos");
+            String[] pair = pos.trim().split("[, ]");
+            if(pair.length != 2) {
+                System.err.println("Don't know what to do with coordinates != 2; " + pos);
+                continue;
+            }
+            BigDecimal x_bd = new BigDecimal(pair[0]);
+            BigDecimal y_bd = new BigDecimal(pair[1]);
+//            System.out.println("Node " + nodeid + " : " + pos + " = " + x_bd.floatValue() + "," + y_bd.floatValue());
+            final String attrs = matcher.group("before") + "," + matcher.group("after");
+            positions.put(nodeid, new float[] { x_bd.floatValue(), y_bd.floatValue(),
+                    72.0f * sizeAttribute(WIDTH_PATTERN, attrs, 0.75f),
+                    72.0f * sizeAttribute(HEIGHT_PATTERN, attrs, 0.5f) });
+        }
+        return positions;
+    }
+
+    private static float sizeAttribute(final Pattern pat, final String attrs, final float fallback) {
+        final Matcher matcher = pat.matcher(attrs);
+        if (!matcher.find()) {
+            return fallback;
+        }
+        try {
+            return Float.parseFloat(matcher.group(1));
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    private void applyPositions(final Map<Integer, float[]> positions) {
+        // For some reason this one wasn't working
+        // Node n = graph.getNode(nodeid);
+        // ... so we map all nodes temporarily
+        final Map<Integer, Node> nodeMapper = new HashMap<Integer, Node>();
+        for (final Node currentNode : this.graph.getNodes()) {
+            nodeMapper.put(currentNode.getId(), currentNode);
+        }
+
+        for (final Map.Entry<Integer, float[]> entry : positions.entrySet()) {
+            final Node n = nodeMapper.get(entry.getKey());
+            if(null == n) {
+                System.err.println("Cannot find nodeid " + entry.getKey());
+                continue;
+            }
+            n.getNodeData().setX(entry.getValue()[0]);
+            n.getNodeData().setY(entry.getValue()[1]);
+        }
+    }
 
+    /**
+     * Echo graphviz's stderr to ours, and return it.
+     */
+    private static String dumpErrors(final Process dotprocess, final AtomicBoolean destroyed) {
+        final StringBuilder entireErrors = new StringBuilder();
         InputStream err = null;
         try {
             // Dump any errors
             {
                 err = dotprocess.getErrorStream();
-                final InputStreamReader glue = new InputStreamReader(err);
+                final InputStreamReader glue = new InputStreamReader(err, "UTF-8");
                 final BufferedReader errorsFromGraphviz = new BufferedReader(glue);
                 String line;
                 while ((line = errorsFromGraphviz.readLine()) != null) {
                     {
                         System.err.println(line);
+                        entireErrors.append(line).append('\n');
                     }
                 }
             }
         } catch (IOException e) {
-            Exceptions.printStackTrace(e);            
+            if (!destroyed.get()) {
+                Exceptions.printStackTrace(e);
+            }
         } finally {
             try {
                 if (err != null) {
@@ -327,5 +962,21 @@ public class GraphvizLayout extends AbstractLayout implements Layout {
             } catch (IOException e) {
             }
         }
+        return entireErrors.toString();
+    }
+
+    private static class RaceEntry {
+
+        final String engine;
+        final Map<Integer, float[]> positions;
+        final double overlap;
+        final long millis;
+
+        RaceEntry(String engine, Map<Integer, float[]> positions, double overlap, long millis) {
+            this.engine = engine;
+            this.positions = positions;
+            this.overlap = overlap;
+            this.millis = millis;
+        }
     }
 }
@@ -0,0 +1,153 @@
+/*
+  Copyright (C) 2026 gephi_graphviz contributors
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+*/
+
+package org.icculus.chunky.gephigraphviz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.openide.util.Exceptions;
+import org.openide.util.NbPreferences;
+
+/**
+ * Bookkeeping for the "race" algorithm: which engines to start, whether a
+ * finished layout is good enough to take, and which engines have won.
+ * Wins are kept in the module's preferences, so they survive restarts.
+ *
+ * @author gephi_graphviz contributors
+ */
+public final class GraphvizRace {
+
+    /** Algorithm name that selects race mode */
+    public static final String RACE = "race";
+
+    /** A layout is accepted if at most this fraction of sampled pairs overlap */
+    public static final double MAX_OVERLAP_FRACTION = 0.05;
+
+    private static final int OVERLAP_SAMPLES = 10000;
+
+    private static final String WINS_PREFIX = "race.wins.";
+
+    private GraphvizRace() {
+    }
+
+    /**
+     * Split a comma separated engine list, ordered so that engines that
+     * have won before are started first. The race takes scheduler slots
+     * in this order, which matters when there are fewer free slots than
+     * engines.
+     */
+    public static List<String> parseEngines(String engines) {
+        final List<String> result = new ArrayList<String>();
+        for (final String engine : engines.split("[,\\s]+")) {
+            if (engine.length() > 0 && !RACE.equals(engine) && !result.contains(engine)) {
+                result.add(engine);
+            }
+        }
+        final Map<String, Integer> pastWins = getWins();
+        Collections.sort(result, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return winsFor(pastWins, b) - winsFor(pastWins, a);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Estimate the fraction of node pairs whose boxes overlap, from a
+     * fixed-seed random sample of pairs so that it stays cheap on large
+     * graphs.
+     *
+     * @param positions per node x, y, width and height, in points, as
+     *  graphviz sized the node for its label
+     */
+    public static double overlapFraction(Map<Integer, float[]> positions) {
+        final List<float[]> points = new ArrayList<float[]>(positions.values());
+        final int n = points.size();
+        if (n < 2) {
+            return 0.0;
+        }
+
+        final long pairs = (long) n * (n - 1) / 2;
+        final Random rand = new Random(n);
+        int sampled = 0;
+        int overlapping = 0;
+        if (pairs <= OVERLAP_SAMPLES) {
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    sampled++;
+                    if (overlaps(points.get(i), points.get(j))) {
+                        overlapping++;
+                    }
+                }
+            }
+        } else {
+            while (sampled < OVERLAP_SAMPLES) {
+                final int i = rand.nextInt(n);
+                final int j = rand.nextInt(n);
+                if (i == j) {
+                    continue;
+                }
+                sampled++;
+                if (overlaps(points.get(i), points.get(j))) {
+                    overlapping++;
+                }
+            }
+        }
+        return (double) overlapping / sampled;
+    }
+
+    public static synchronized void recordWin(String engine) {
+        final Preferences prefs = NbPreferences.forModule(GraphvizRace.class);
+        prefs.putInt(WINS_PREFIX + engine, prefs.getInt(WINS_PREFIX + engine, 0) + 1);
+    }
+
+    public static synchronized Map<String, Integer> getWins() {
+        final Map<String, Integer> wins = new HashMap<String, Integer>();
+        final Preferences prefs = NbPreferences.forModule(GraphvizRace.class);
+        try {
+            for (final String key : prefs.keys()) {
+                if (key.startsWith(WINS_PREFIX)) {
+                    wins.put(key.substring(WINS_PREFIX.length()), prefs.getInt(key, 0));
+                }
+            }
+        } catch (BackingStoreException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        return wins;
+    }
+
+    private static int winsFor(Map<String, Integer> wins, String engine) {
+        final Integer count = wins.get(engine);
+        return null == count ? 0 : count;
+    }
+
+    private static boolean overlaps(float[] a, float[] b) {
+        return Math.abs(a[0] - b[0]) < (a[2] + b[2]) / 2
+                && Math.abs(a[1] - b[1]) < (a[3] + b[3]) / 2;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+  Copyright (C) 2026 gephi_graphviz contributors
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+*/
+
+package org.icculus.chunky.gephigraphviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM-wide admission control for graphviz processes.
+ *
+ * Every GraphvizLayout goes through the same scheduler, so however many
+ * layouts are running there are never more than maxProcesses graphviz
+ * processes alive at once. Jobs waiting for a slot are served in arrival
+ * order; once maxQueued jobs are waiting, new ones are rejected outright.
+ *
+ * The defaults can be changed at startup with the system properties
+ * gephigraphviz.maxProcesses, gephigraphviz.maxQueued and
+ * gephigraphviz.queueTimeout (seconds).
+ *
+ * @author gephi_graphviz contributors
+ */
+public final class GraphvizScheduler {
+
+    private static final GraphvizScheduler DEFAULT = new GraphvizScheduler(
+            Integer.getInteger("gephigraphviz.maxProcesses", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("gephigraphviz.maxQueued", 16),
+            Long.getLong("gephigraphviz.queueTimeout", 600L));
+
+    private final int maxProcesses;
+    private final int maxQueued;
+    private final long queueTimeout;
+
+    private final Semaphore slots;
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    private static Boolean prlimitAvailable = null;
+
+    public GraphvizScheduler(int maxProcesses, int maxQueued, long queueTimeout) {
+        this.maxProcesses = Math.max(1, maxProcesses);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.queueTimeout = queueTimeout;
+        // Fair, so jobs get their slot in the order they asked for it
+        this.slots = new Semaphore(this.maxProcesses, true);
+    }
+
+    public static GraphvizScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public int getRunning() {
+        return maxProcesses - slots.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Block until a graphviz slot is free. Every successful call must be
+     * paired with a call to release().
+     *
+     * @throws IOException if the queue is full or the wait timed out
+     * @throws InterruptedIOException if the waiting thread was interrupted
+     */
+    public void acquire() throws IOException {
+        try {
+            // Unlike plain tryAcquire(), a timed tryAcquire won't jump the queue
+            if (slots.tryAcquire(0, TimeUnit.SECONDS)) {
+                return;
+            }
+            if (waiting.incrementAndGet() > maxQueued) {
+                waiting.decrementAndGet();
+                throw new IOException("Graphviz job rejected: " + maxProcesses
+                        + " processes already running and " + maxQueued + " jobs queued");
+            }
+            try {
+                if (!slots.tryAcquire(queueTimeout, TimeUnit.SECONDS)) {
+                    throw new IOException("Graphviz job rejected: no free slot after waiting "
+                            + queueTimeout + " seconds");
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Graphviz job cancelled while queued");
+        }
+    }
+
+    /**
+     * Take a graphviz slot if one is free right now and nobody is queued
+     * for it. A successful call must be paired with a call to release().
+     *
+     * @return true if a slot was taken
+     * @throws InterruptedIOException if the calling thread was interrupted
+     */
+    public boolean tryAcquire() throws InterruptedIOException {
+        try {
+            return slots.tryAcquire(0, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Graphviz job cancelled while queued");
+        }
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    /**
+     * Wrap a graphviz command line so the kernel enforces the given limits
+     * on it. Only done on Linux; elsewhere, or if both limits are zero, the
+     * command is returned as-is.
+     *
+     * @param cmd graphviz command line
+     * @param memoryLimitMB address space limit in megabytes, 0 for none
+     * @param cpuLimitSeconds CPU time limit in seconds, 0 for none
+     */
+    public static List<String> limitCommand(List<String> cmd, int memoryLimitMB, int cpuLimitSeconds) {
+        if (!limitsApply(memoryLimitMB, cpuLimitSeconds)) {
+            return cmd;
+        }
+
+        final List<String> wrapped = new ArrayList<String>();
+        if (isPrlimitAvailable()) {
+            wrapped.add("prlimit");
+            if (memoryLimitMB > 0) {
+                wrapped.add("--as=" + (long) memoryLimitMB * 1024 * 1024);
+            }
+            if (cpuLimitSeconds > 0) {
+                wrapped.add("--cpu=" + cpuLimitSeconds);
+            }
+            wrapped.add("--");
+        } else {
+            // No prlimit (older util-linux); fall back on the shell's ulimit
+            final StringBuilder script = new StringBuilder();
+            if (memoryLimitMB > 0) {
+                script.append("ulimit -v ").append((long) memoryLimitMB * 1024).append(" && ");
+            }
+            if (cpuLimitSeconds > 0) {
+                script.append("ulimit -t ").append(cpuLimitSeconds).append(" && ");
+            }
+            script.append("exec \"$0\" \"$@\"");
+            wrapped.add("/bin/sh");
+            wrapped.add("-c");
+            wrapped.add(script.toString());
+        }
+        wrapped.addAll(cmd);
+        return wrapped;
+    }
+
+    /**
+     * Describe a nonzero graphviz exit status. Limits are only blamed if
+     * limitCommand() actually applied some.
+     *
+     * @param memoryLimitMB the memory limit the process was started with
+     * @param cpuLimitSeconds the CPU time limit the process was started with
+     */
+    public static String describeExit(int exitValue, int memoryLimitMB, int cpuLimitSeconds) {
+        final boolean limited = limitsApply(memoryLimitMB, cpuLimitSeconds);
+        if (128 + 9 == exitValue && limited) {
+            return "Graphviz process was killed (SIGKILL); it may have exceeded its memory or CPU limit";
+        }
+        if (128 + 24 == exitValue && limited && cpuLimitSeconds > 0) {
+            return "Graphviz process exceeded its CPU time limit";
+        }
+        if (exitValue > 128) {
+            return "Graphviz process was killed by signal " + (exitValue - 128);
+        }
+        if (limited && memoryLimitMB > 0) {
+            return "Graphviz process failed with exit status " + exitValue
+                    + "; it may have exceeded its memory limit";
+        }
+        return "Graphviz process failed with exit status " + exitValue;
+    }
+
+    private static boolean limitsApply(int memoryLimitMB, int cpuLimitSeconds) {
+        if (memoryLimitMB <= 0 && cpuLimitSeconds <= 0) {
+            return false;
+        }
+        return System.getProperty("os.name", "").startsWith("Linux");
+    }
+
+    private static synchronized boolean isPrlimitAvailable() {
+        if (null == prlimitAvailable) {
+            prlimitAvailable = Boolean.FALSE;
+            final String path = System.getenv("PATH");
+            if (null != path) {
+                for (final String dir : path.split(File.pathSeparator)) {
+                    if (new File(dir, "prlimit").canExecute()) {
+                        prlimitAvailable = Boolean.TRUE;
+                        break;
+                    }
+                }
+            }
+        }
+        return prlimitAvailable;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+  Copyright (C) 2026 gephi_graphviz contributors
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+*/
+
+package org.icculus.chunky.gephigraphviz;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.NodeData;
+
+/**
+ * A coarse stand-in for a large graph, used for the progressive preview.
+ *
+ * The highest degree nodes become hubs. Every other node is attached to
+ * its nearest hub by a breadth first search from all hubs at once, and
+ * the skeleton has an edge between two hubs wherever an edge of the full
+ * graph crosses between their regions. That keeps the skeleton connected
+ * wherever the graph is. Only the heaviest skeleton edges are kept, after
+ * a spanning forest, so graphviz can lay it out in a second or two.
+ *
+ * @author gephi_graphviz contributors
+ */
+public class GraphvizSkeleton {
+
+    // Rough distance in points between neighbouring nodes around a hub
+    private static final float NODE_SPACING = 20.0f;
+    private static final double GOLDEN_ANGLE = Math.PI * (3.0 - Math.sqrt(5.0));
+    // Skeleton edges kept, per hub
+    private static final int LINKS_PER_HUB = 4;
+
+    private final Node[] nodes;
+    private final int[] hubs;
+    // Per node: index of its hub in nodes, or -1 if no hub reached it
+    private final int[] anchor;
+    // Per node: position in its hub's region, in BFS order; hubs are 0
+    private final int[] rank;
+    // Per hub, indexed like nodes: number of nodes in its region
+    private final int[] regionSize;
+    // Skeleton edges, keyed by pair of hub indices, valued by crossing count
+    private final Map<Long, Integer> links = new HashMap<Long, Integer>();
+
+    public GraphvizSkeleton(final Graph graph, final int size) {
+        this.nodes = graph.getNodes().toArray();
+        final int n = nodes.length;
+
+        final Map<Integer, Integer> indexOf = new HashMap<Integer, Integer>();
+        for (int i = 0; i < n; i++) {
+            indexOf.put(nodes[i].getId(), i);
+        }
+
+        // Compressed adjacency, undirected
+        final Edge[] edges = graph.getEdges().toArray();
+        final int[] src = new int[edges.length];
+        final int[] dst = new int[edges.length];
+        final int[] offset = new int[n + 1];
+        for (int e = 0; e < edges.length; e++) {
+            src[e] = indexOf.get(edges[e].getSource().getId());
+            dst[e] = indexOf.get(edges[e].getTarget().getId());
+            offset[src[e] + 1]++;
+            offset[dst[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offset[i + 1] += offset[i];
+        }
+        final int[] adjacent = new int[offset[n]];
+        final int[] fill = Arrays.copyOf(offset, n);
+        for (int e = 0; e < edges.length; e++) {
+            adjacent[fill[src[e]]++] = dst[e];
+            adjacent[fill[dst[e]]++] = src[e];
+        }
+
+        // Hubs are the top "size" nodes by degree; ties go to whoever comes first
+        final int hubCount = Math.max(1, Math.min(size, n));
+        final int[] sortedDegrees = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedDegrees[i] = offset[i + 1] - offset[i];
+        }
+        Arrays.sort(sortedDegrees);
+        final int threshold = n > 0 ? sortedDegrees[n - hubCount] : 0;
+        int above = 0;
+        for (int i = 0; i < n; i++) {
+            if (offset[i + 1] - offset[i] > threshold) {
+                above++;
+            }
+        }
+        int tiesWanted = hubCount - above;
+
+        this.hubs = new int[Math.min(hubCount, n)];
+        this.anchor = new int[n];
+        this.rank = new int[n];
+        this.regionSize = new int[n];
+        Arrays.fill(anchor, -1);
+
+        final int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < n && tail < hubs.length; i++) {
+            final int degree = offset[i + 1] - offset[i];
+            if (degree > threshold || (degree == threshold && tiesWanted-- > 0)) {
+                hubs[tail] = i;
+                anchor[i] = i;
+                regionSize[i] = 1;
+                queue[tail++] = i;
+            }
+        }
+
+        // Multi-source BFS; every reached node takes the hub that got there first
+        while (head < tail) {
+            final int u = queue[head++];
+            for (int k = offset[u]; k < offset[u + 1]; k++) {
+                final int v = adjacent[k];
+                if (anchor[v] < 0) {
+                    anchor[v] = anchor[u];
+                    rank[v] = regionSize[anchor[u]]++;
+                    queue[tail++] = v;
+                }
+            }
+        }
+
+        for (int e = 0; e < edges.length; e++) {
+            final int a = anchor[src[e]];
+            final int b = anchor[dst[e]];
+            if (a < 0 || b < 0 || a == b) {
+                continue;
+            }
+            final Long key = (long) Math.min(a, b) << 32 | Math.max(a, b);
+            final Integer count = links.get(key);
+            links.put(key, null == count ? 1 : count + 1);
+        }
+        pruneLinks(LINKS_PER_HUB * hubs.length);
+    }
+
+    /**
+     * Cut the skeleton down to at most maxLinks edges: first a maximum
+     * weight spanning forest, so nothing connected falls apart, then the
+     * heaviest of the rest.
+     */
+    private void pruneLinks(final int maxLinks) {
+        if (links.size() <= maxLinks) {
+            return;
+        }
+        final List<Map.Entry<Long, Integer>> byWeight = new ArrayList<Map.Entry<Long, Integer>>(links.entrySet());
+        Collections.sort(byWeight, new Comparator<Map.Entry<Long, Integer>>() {
+            public int compare(Map.Entry<Long, Integer> a, Map.Entry<Long, Integer> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+
+        final Map<Integer, Integer> parent = new HashMap<Integer, Integer>();
+        for (final int hub : hubs) {
+            parent.put(hub, hub);
+        }
+        final Map<Long, Integer> kept = new HashMap<Long, Integer>();
+        final List<Map.Entry<Long, Integer>> rest = new ArrayList<Map.Entry<Long, Integer>>();
+        for (final Map.Entry<Long, Integer> link : byWeight) {
+            final int a = find(parent, (int) (link.getKey() >>> 32));
+            final int b = find(parent, (int) (link.getKey() & 0xffffffffL));
+            if (a != b) {
+                parent.put(a, b);
+                kept.put(link.getKey(), link.getValue());
+            } else {
+                rest.add(link);
+            }
+        }
+        for (int i = 0; i < rest.size() && kept.size() < maxLinks; i++) {
+            kept.put(rest.get(i).getKey(), rest.get(i).getValue());
+        }
+        links.clear();
+        links.putAll(kept);
+    }
+
+    private static int find(final Map<Integer, Integer> parent, int hub) {
+        int root = hub;
+        while (parent.get(root) != root) {
+            root = parent.get(root);
+        }
+        while (hub != root) {
+            final int next = parent.get(hub);
+            parent.put(hub, root);
+            hub = next;
+        }
+        return root;
+    }
+
+    public int getHubCount() {
+        return hubs.length;
+    }
+
+    /**
+     * Serialize the skeleton for graphviz. Hubs keep their gephi node ids so
+     * the output can be fed straight back to place(). Each hub is drawn as
+     * a circle big enough for its whole region, and overlap removal is
+     * always on, so regions end up side by side rather than on top of
+     * each other.
+     */
+    public void toDot(final DotEncoder dotfile, final String layoutEngine) throws IOException {
+        dotfile.append("graph skeleton {\n");
+        dotfile.append("layout = ").appendQuoted(layoutEngine).append(";\n");
+        dotfile.append("overlap = \"false\";\n");
+        dotfile.append("node [shape=circle, fixedsize=true, label=\"\"];\n");
+
+        for (final int hub : hubs) {
+            // Inches, graphviz's unit for node sizes
+            final float diameter = 2.0f * regionRadius(regionSize[hub]) / 72.0f;
+            dotfile.append(nodes[hub].getId());
+            dotfile.append(" [width=").append(diameter);
+            dotfile.append(", height=").append(diameter);
+            dotfile.append("];\n");
+        }
+        for (final Map.Entry<Long, Integer> link : links.entrySet()) {
+            final int a = (int) (link.getKey() >>> 32);
+            final int b = (int) (link.getKey() & 0xffffffffL);
+            dotfile.append(nodes[a].getId());
+            dotfile.append("--");
+            dotfile.append(nodes[b].getId());
+            dotfile.append(" [weight=");
+            dotfile.append(link.getValue());
+            dotfile.append("];\n");
+        }
+        dotfile.append("}\n");
+    }
+
+    /**
+     * Move hubs to their skeleton layout positions and spread every other
+     * reached node around its hub on a Vogel spiral, nearest (in BFS
+     * order) innermost. Nodes no hub reached are left where they are.
+     *
+     * @param hubPositions skeleton layout, keyed by gephi node id
+     */
+    public void place(final Map<Integer, float[]> hubPositions) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (anchor[i] < 0) {
+                continue;
+            }
+            final float[] center = hubPositions.get(nodes[anchor[i]].getId());
+            if (null == center) {
+                continue;
+            }
+            final NodeData nodeData = nodes[i].getNodeData();
+            final double angle = GOLDEN_ANGLE * rank[i];
+            final float radius = regionRadius(rank[i]);
+            nodeData.setX(center[0] + radius * (float) Math.cos(angle));
+            nodeData.setY(center[1] + radius * (float) Math.sin(angle));
+        }
+    }
+
+    // Radius of a Vogel spiral holding count nodes
+    private static float regionRadius(final int count) {
+        return NODE_SPACING * (float) Math.sqrt(count);
+    }
+}
@@ -18,6 +18,9 @@
   3. This notice may not be removed or altered from any source distribution.
 
         Gary Briggs <chunky@icculus.org>
+
+  Altered in 2026 by the gephi_graphviz contributors; this is not the
+  original software.
 */
 
 /*
@@ -91,7 +94,7 @@ public class GraphvizUIPanel extends javax.swing.JPanel {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         add(jLabel1, gridBagConstraints);
 
-        algoCombo.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "dot", "sfdp", "fdp", "neato", "twopi", "osage", "circo", "patchwork", "nop" }));
+        algoCombo.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "dot", "sfdp", "fdp", "neato", "twopi", "osage", "circo", "patchwork", "nop", "race" }));
         algoCombo.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
                 algoComboActionPerformed(evt);